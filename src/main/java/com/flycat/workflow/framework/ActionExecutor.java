@@ -3,7 +3,10 @@ package com.flycat.workflow.framework;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,9 +16,20 @@ class ActionExecutor {
     private Class<? extends Action> actionClass;
     private Constructor<? extends Action> constructor;
     private Method checkMethod, runMethod;
+    private Map<Class<? extends Action>, ActionLimiter> limiters;
 
     public ActionExecutor(Class<? extends Action> clazz) {
+        this(clazz, Collections.emptyMap());
+    }
+
+    /*
+     * Construct action executor with limiters keyed by action class, the
+     * limiter is looked up on each run, no limiter means no concurrency limit.
+     */
+    public ActionExecutor(Class<? extends Action> clazz,
+                          Map<Class<? extends Action>, ActionLimiter> limiters) {
         actionClass = Objects.requireNonNull(clazz);
+        this.limiters = Objects.requireNonNull(limiters);
         try {
             constructor = actionClass.getDeclaredConstructor(ActionContext.class);
         } catch (Throwable e) {
@@ -45,14 +59,35 @@ class ActionExecutor {
         }
     }
 
+    /*
+     * Run action with context, throw RejectedExecutionException if the
+     * concurrency limit of this action class is reached.
+     */
     public void run(ActionContext context) {
+        boolean needRun;
         try {
-            if ((Boolean)checkMethod.invoke(actionClass, context)) {
-                Action action = constructor.newInstance(context);
-                runMethod.invoke(action);
-            }
+            needRun = (Boolean)checkMethod.invoke(actionClass, context);
+        } catch (Throwable e) {
+            LOGGER.log(Level.SEVERE, "Failed to check action with context " + actionClass.getName(), e);
+            return;
+        }
+        if (!needRun)
+            return;
+        ActionLimiter limiter = limiters.get(actionClass);
+        if (limiter != null && !limiter.acquire())
+            throw new RejectedExecutionException(
+                    "Concurrency limit reached for action " + actionClass.getName());
+        long startTime = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            Action action = constructor.newInstance(context);
+            runMethod.invoke(action);
+            success = true;
         } catch (Throwable e) {
             LOGGER.log(Level.SEVERE, "Failed to run action with context " + actionClass.getName(), e);
+        } finally {
+            if (limiter != null)
+                limiter.release(System.currentTimeMillis() - startTime, success);
         }
     }
 }
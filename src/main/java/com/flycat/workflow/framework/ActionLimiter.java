@@ -0,0 +1,127 @@
+package com.flycat.workflow.framework;
+
+/*
+ * Concurrency limiter(bulkhead) shared by all actions of the same class.
+ *
+ * A static limiter allows at most maxLimit actions to run at the same time.
+ * An adaptive limiter tunes its limit between minLimit and maxLimit with
+ * AIMD: the limit grows by 1/limit for each action finished within target
+ * latency, and is multiplied by BACKOFF_RATIO when an action is slow or fails.
+ *
+ * Waiting callers park pool threads, so at most queueSize callers may wait
+ * for a permit, further callers are rejected at once.
+ */
+class ActionLimiter {
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final long targetLatency;
+    private final int queueSize;
+    private final long queueTimeout;
+
+    private double limit;
+    private int inflight = 0;
+    private int waiters = 0;
+
+    /*
+     * Construct a static limiter.
+     */
+    public ActionLimiter(int maxLimit, int queueSize, long queueTimeout) {
+        this(maxLimit, maxLimit, false, 0, queueSize, queueTimeout);
+    }
+
+    /*
+     * Construct a limiter, targetLatency(ms) is only used by adaptive limiter.
+     */
+    public ActionLimiter(int minLimit, int maxLimit, boolean adaptive,
+                         long targetLatency, int queueSize, long queueTimeout) {
+        if (minLimit <= 0 || maxLimit < minLimit)
+            throw new IllegalArgumentException(
+                    "Invalid concurrency limit [" + minLimit + ", " + maxLimit + "]");
+        if (adaptive && targetLatency <= 0)
+            throw new IllegalArgumentException("Invalid target latency " + targetLatency);
+        if (queueSize < 0)
+            throw new IllegalArgumentException("Invalid queue size " + queueSize);
+        if (queueTimeout < 0)
+            throw new IllegalArgumentException("Invalid queue timeout " + queueTimeout);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.targetLatency = targetLatency;
+        this.queueSize = queueSize;
+        this.queueTimeout = queueTimeout;
+        this.limit = maxLimit;
+    }
+
+    /*
+     * Acquire a permit, wait at most queueTimeout(ms) when limit is reached and
+     * less than queueSize callers are waiting.
+     * Return false if no permit is available in time.
+     */
+    public synchronized boolean acquire() {
+        if (inflight < getLimit()) {
+            ++inflight;
+            return true;
+        }
+        if (waiters >= queueSize || queueTimeout <= 0)
+            return false;
+        ++waiters;
+        try {
+            long deadline = System.currentTimeMillis() + queueTimeout;
+            long leftTime = queueTimeout;
+            while (inflight >= getLimit()) {
+                if (leftTime <= 0)
+                    return false;
+                try {
+                    wait(leftTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                leftTime = deadline - System.currentTimeMillis();
+            }
+        } finally {
+            --waiters;
+        }
+        ++inflight;
+        return true;
+    }
+
+    /*
+     * Release a permit acquired before, latency(ms) is the action run time.
+     */
+    public synchronized void release(long latency, boolean success) {
+        if (inflight <= 0)
+            throw new IllegalStateException("Release without acquire");
+        --inflight;
+        if (adaptive) {
+            if (success && latency <= targetLatency) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            } else {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() { return (int)limit; }
+
+    public synchronized int getInflight() { return inflight; }
+
+    public synchronized int getWaiters() { return waiters; }
+
+    /*
+     * Check whether this limiter is configured the same as another one.
+     */
+    boolean sameConfig(ActionLimiter other) {
+        return other != null &&
+                minLimit == other.minLimit &&
+                maxLimit == other.maxLimit &&
+                adaptive == other.adaptive &&
+                targetLatency == other.targetLatency &&
+                queueSize == other.queueSize &&
+                queueTimeout == other.queueTimeout;
+    }
+}
@@ -1,11 +1,15 @@
 package com.flycat.workflow.framework;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -15,6 +19,10 @@ import java.util.logging.Logger;
 class FlowExecutor {
     private static final Logger LOGGER = Logger.getLogger(FlowExecutor.class.getName());
 
+    private enum NodeStatus {
+        WAITING, RUNNING, DONE
+    }
+
     /*
      * Node state.
      */
@@ -22,7 +30,8 @@ class FlowExecutor {
         AtomicInteger barrier;
         FlowNode nextNode;
         FlowNode doneNode;
-        Object errorObject;
+        volatile Object errorObject;
+        volatile NodeStatus status = NodeStatus.WAITING;
     }
 
     private enum ExecutorStatus {
@@ -32,8 +41,9 @@ class FlowExecutor {
     private long seqId;
     private ActionContext context;
     private FlowFuture flowFuture;
-    private long startTimestamp = 0;
-    private long stopTimestamp = 0;
+    private volatile long startTimestamp = 0;
+    private volatile long stopTimestamp = 0;
+    private volatile long progressTimestamp = 0;
     private AtomicReference<ExecutorStatus> status;
     private Map<FlowNode, NodeState> stateMap;
     private ThreadPoolExecutor threadPool;
@@ -46,12 +56,15 @@ class FlowExecutor {
         this.status = new AtomicReference<>(ExecutorStatus.INIT);
         this.stateMap = new ConcurrentHashMap<>();
         this.threadPool = Objects.requireNonNull(executor);
+        this.startTimestamp = System.currentTimeMillis();
+        this.progressTimestamp = startTimestamp;
     }
 
     public long getSeqId() { return seqId; }
 
     public void onExecutorStart() {
         startTimestamp = System.currentTimeMillis();
+        progressTimestamp = startTimestamp;
         status.compareAndSet(ExecutorStatus.INIT, ExecutorStatus.RUNNING);
     }
 
@@ -62,7 +75,7 @@ class FlowExecutor {
         }
     }
 
-    public Future<Void> getFuture() {
+    public FlowFuture getFuture() {
         return flowFuture;
     }
 
@@ -73,7 +86,9 @@ class FlowExecutor {
         int value = nodeState.barrier.decrementAndGet();
         if (value < 0)
             throw new RuntimeException("Invalid workflow state machine");
+        progressTimestamp = System.currentTimeMillis();
         if (value == 0) {
+            nodeState.status = NodeStatus.DONE;
             if (nodeState.doneNode != null) {
                 onNodeDone(nodeState.doneNode);
             }
@@ -119,9 +134,22 @@ class FlowExecutor {
 
     public void runNode(FlowNode node) {
         try {
+            NodeState nodeState = stateMap.get(node);
+            if (nodeState != null)
+                nodeState.status = NodeStatus.RUNNING;
             switch (node.nodeType) {
                 case ACTION_NODE: {
-                    node.actionExecutor.run(context);
+                    // Remaining actions are skipped once the flow failed, so that
+                    // the flow still goes to exit node and completes its future.
+                    if (flowFuture.getError() == null) {
+                        try {
+                            node.actionExecutor.run(context);
+                        } catch (RejectedExecutionException e) {
+                            setNodeError(node, e);
+                            flowFuture.setError(e);
+                            LOGGER.log(Level.WARNING, "Action rejected in node " + node.nodeSeq, e);
+                        }
+                    }
                     onNodeDone(node);
                     break;
                 }
@@ -157,4 +185,42 @@ class FlowExecutor {
             nodeState.errorObject = o;
         }
     }
+
+    /*
+     * Take a read-only snapshot of this executor, frontier nodes are the running
+     * nodes without any running child.
+     */
+    public FlowSnapshot snapshot(String flowName, long now, long stuckTimeout) {
+        List<String> frontierNodes = null;
+        Map<String, Object> nodeErrors = null;
+        for (Map.Entry<FlowNode, NodeState> entry : stateMap.entrySet()) {
+            FlowNode node = entry.getKey();
+            NodeState nodeState = entry.getValue();
+            if (nodeState.errorObject != null) {
+                if (nodeErrors == null) nodeErrors = new HashMap<>();
+                nodeErrors.put(node.nodeSeq, nodeState.errorObject);
+            }
+            if (nodeState.status == NodeStatus.RUNNING && !hasRunningChild(node)) {
+                if (frontierNodes == null) frontierNodes = new ArrayList<>();
+                frontierNodes.add(node.nodeSeq);
+            }
+        }
+        long lastProgress = progressTimestamp;
+        long start = startTimestamp;
+        return new FlowSnapshot(flowName, seqId, start, Math.max(0, now - start),
+                now - lastProgress > stuckTimeout,
+                frontierNodes == null ? Collections.emptyList() : frontierNodes,
+                nodeErrors == null ? Collections.emptyMap() : nodeErrors);
+    }
+
+    private boolean hasRunningChild(FlowNode node) {
+        if (node.childrenList == null)
+            return false;
+        for (FlowNode childNode : node.childrenList) {
+            NodeState childState = stateMap.get(childNode);
+            if (childState != null && childState.status == NodeStatus.RUNNING)
+                return true;
+        }
+        return false;
+    }
 }
@@ -1,12 +1,15 @@
 package com.flycat.workflow.framework;
 
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FlowFuture implements Future<Void> {
     private Object sync = new Object();
     private AtomicBoolean isDone = new AtomicBoolean(false);
+    private AtomicReference<Throwable> error = new AtomicReference<>();
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
@@ -26,13 +29,28 @@ public class FlowFuture implements Future<Void> {
         }
     }
 
+    /*
+     * Set the first error of this flow, later errors are ignored.
+     */
+    public void setError(Throwable e) {
+        error.compareAndSet(null, e);
+    }
+
+    /*
+     * Get the error which failed this flow, null if no error.
+     * get() throws ExecutionException wrapping this error once flow is done.
+     */
+    public Throwable getError() {
+        return error.get();
+    }
+
     @Override
     public boolean isDone() {
         return isDone.get();
     }
 
     @Override
-    public Void get() {
+    public Void get() throws ExecutionException {
         synchronized (sync) {
             while (!isDone.get()) {
                 try {
@@ -42,11 +60,11 @@ public class FlowFuture implements Future<Void> {
                 }
             }
         }
-        return null;
+        return checkError();
     }
 
     @Override
-    public Void get(long timeout, TimeUnit unit) {
+    public Void get(long timeout, TimeUnit unit) throws ExecutionException {
         long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
         long leftTime = deadline - System.currentTimeMillis();
         while (leftTime > 0 && !isDone.get()) {
@@ -59,6 +77,13 @@ public class FlowFuture implements Future<Void> {
             }
             leftTime = deadline - System.currentTimeMillis();
         }
+        return isDone.get() ? checkError() : null;
+    }
+
+    private Void checkError() throws ExecutionException {
+        Throwable e = error.get();
+        if (e != null)
+            throw new ExecutionException(e);
         return null;
     }
 }
@@ -0,0 +1,65 @@
+package com.flycat.workflow.framework;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Read-only snapshot of a running workflow executor.
+ */
+public class FlowSnapshot {
+    private final String flowName;
+    private final long seqId;
+    private final long startTimestamp;
+    private final long elapsedTime;
+    private final boolean stuck;
+    private final List<String> frontierNodes;
+    private final Map<String, Object> nodeErrors;
+
+    FlowSnapshot(String flowName, long seqId, long startTimestamp, long elapsedTime,
+                 boolean stuck, List<String> frontierNodes, Map<String, Object> nodeErrors) {
+        this.flowName = flowName;
+        this.seqId = seqId;
+        this.startTimestamp = startTimestamp;
+        this.elapsedTime = elapsedTime;
+        this.stuck = stuck;
+        this.frontierNodes = Collections.unmodifiableList(frontierNodes);
+        this.nodeErrors = Collections.unmodifiableMap(nodeErrors);
+    }
+
+    public String getFlowName() { return flowName; }
+
+    public long getSeqId() { return seqId; }
+
+    public long getStartTimestamp() { return startTimestamp; }
+
+    /*
+     * Elapsed time(ms) since executor started.
+     */
+    public long getElapsedTime() { return elapsedTime; }
+
+    /*
+     * Whether no node finished within the stuck timeout.
+     */
+    public boolean isStuck() { return stuck; }
+
+    /*
+     * Sequences of the deepest running nodes.
+     */
+    public List<String> getFrontierNodes() { return frontierNodes; }
+
+    /*
+     * Errors recorded by nodes, keyed by node sequence.
+     */
+    public Map<String, Object> getNodeErrors() { return nodeErrors; }
+
+    @Override
+    public String toString() {
+        return "FlowSnapshot{flowName=" + flowName +
+                ", seqId=" + seqId +
+                ", elapsedTime=" + elapsedTime +
+                ", stuck=" + stuck +
+                ", frontierNodes=" + frontierNodes +
+                ", nodeErrors=" + nodeErrors + "}";
+    }
+}
@@ -3,14 +3,18 @@ package com.flycat.workflow.framework;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.google.common.collect.MapMaker;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,7 +37,8 @@ import java.util.logging.Logger;
  *              "data": [
  *                  {
  *                      "type": "ACTION",
- *                      "data": "com.flycat.biz.SearchAction"
+ *                      "data": "com.flycat.biz.SearchAction",
+ *                      "concurrency": 20
  *                  },
  *                  {
  *                      "type": "ACTION",
@@ -58,23 +63,49 @@ import java.util.logging.Logger;
  *   }
  * }
  *
+ * optional concurrency limit fields of an ACTION node, the limit is shared
+ * by all nodes and runs of the same action class in every workflow using
+ * the same thread pool, conflicting limits of one class fail the init:
+ *
+ *  "concurrency": max concurrent actions of this class
+ *  "minConcurrency": min concurrent actions for adaptive limit, default 1
+ *  "latency": target latency(ms), enables adaptive(AIMD) limit if set
+ *  "queueSize": max callers waiting for a permit, default 0
+ *  "queueTimeout": max time(ms) to wait for a permit, default 0
+ *
+ * a waiting caller parks a pool thread, so keep queueSize small. when the
+ * limit is reached and queueSize callers are already waiting, or no permit
+ * is available within queueTimeout, the action is rejected. a rejected
+ * action is recorded as node error, the remaining actions of the run are
+ * skipped and the error is set on the run's FlowFuture.
+ *
  ***********************************************************************/
 
 public class WorkFlow {
     private static final Logger LOGGER = Logger.getLogger(WorkFlow.class.getName());
 
+    /*
+     * Action limiters shared by all workflows on the same thread pool.
+     */
+    private static final ConcurrentMap<ThreadPoolExecutor,
+            ConcurrentMap<Class<? extends Action>, ActionLimiter>> POOL_LIMITERS =
+            new MapMaker().weakKeys().makeMap();
+
     private String name;
     private String layout;
     private FlowNode rootNode;
     private AtomicLong counter;
     private ThreadPoolExecutor threadPool;
     private Map<Long, FlowExecutor> runningExecutors;
+    private ConcurrentMap<Class<? extends Action>, ActionLimiter> actionLimiters;
 
     public WorkFlow(String layoutConfig, ThreadPoolExecutor threadPool) {
         this.layout = Objects.requireNonNull(layoutConfig);
         this.counter = new AtomicLong(0);
         this.threadPool = Objects.requireNonNull(threadPool);
         this.runningExecutors = new ConcurrentHashMap<>();
+        this.actionLimiters = POOL_LIMITERS.computeIfAbsent(
+                this.threadPool, (ThreadPoolExecutor e) -> new ConcurrentHashMap<>());
     }
 
     public boolean init() {
@@ -91,7 +122,9 @@ public class WorkFlow {
             JSONObject layoutObject = JSONObject.parseObject(layout);
             name = Objects.requireNonNull(layoutObject.getString("name"));
             JSONObject rootObject = layoutObject.getJSONObject("workflow");
-            FlowNode bizNode = parseLayoutNode(rootObject, "0");
+            Map<Class<? extends Action>, ActionLimiter> limiters = new HashMap<>();
+            FlowNode bizNode = parseLayoutNode(rootObject, "0", limiters);
+            publishActionLimiters(limiters);
             rootNode.childrenList.add(bizNode);
 
             FlowNode exitNode = new FlowNode("exit");
@@ -106,16 +139,19 @@ public class WorkFlow {
     }
 
     private void onFlowExecutorStart(FlowExecutor executor) {
-        runningExecutors.put(executor.getSeqId(), executor);
+        // Stamp start time before the executor becomes visible to snapshots.
         executor.onExecutorStart();
+        runningExecutors.put(executor.getSeqId(), executor);
     }
 
     private void onFlowExecutorExit(FlowExecutor executor) {
-        executor.onExecutorExit();
         runningExecutors.remove(executor.getSeqId());
+        executor.onExecutorExit();
     }
 
-    private FlowNode parseLayoutNode(JSONObject object, String nodeSeq) throws Exception {
+    private FlowNode parseLayoutNode(JSONObject object, String nodeSeq,
+                                     Map<Class<? extends Action>, ActionLimiter> limiters)
+            throws Exception {
         FlowNode node = new FlowNode(nodeSeq);
         String nodeType = object.getString("type");
         if (nodeType == null)
@@ -125,10 +161,13 @@ public class WorkFlow {
             String actionClassPath = object.getString("data");
             if (actionClassPath == null)
                 throw new RuntimeException("No data field in workflow node " + nodeSeq);
-            Class<?> actionClass = Class.forName(actionClassPath);
-            if (!Action.class.isAssignableFrom(actionClass))
+            Class<?> clazz = Class.forName(actionClassPath);
+            if (!Action.class.isAssignableFrom(clazz))
                 throw new RuntimeException("Invalid action class in node " + nodeSeq);
-            node.actionExecutor = new ActionExecutor((Class<? extends Action>)actionClass);
+            @SuppressWarnings("unchecked")
+            Class<? extends Action> actionClass = (Class<? extends Action>)clazz;
+            node.actionExecutor = new ActionExecutor(actionClass, actionLimiters);
+            parseActionLimiter(object, actionClass, nodeSeq, limiters);
         } else if (FlowNode.NodeType.SERIAL_NODE.name.equals(nodeType)) {
             node.nodeType = FlowNode.NodeType.SERIAL_NODE;
             JSONArray childArray = object.getJSONArray("data");
@@ -137,7 +176,7 @@ public class WorkFlow {
             node.childrenList = new ArrayList<>(childArray.size());
             for (int i = 0; i < childArray.size(); ++i) {
                 JSONObject childObject = childArray.getJSONObject(i);
-                node.childrenList.add(parseLayoutNode(childObject, nodeSeq + "-" + i));
+                node.childrenList.add(parseLayoutNode(childObject, nodeSeq + "-" + i, limiters));
             }
         } else if (FlowNode.NodeType.PARALLEL_NODE.name.equals(nodeType)) {
             node.nodeType = FlowNode.NodeType.PARALLEL_NODE;
@@ -147,7 +186,7 @@ public class WorkFlow {
             node.childrenList = new ArrayList<>(childArray.size());
             for (int i = 0; i < childArray.size(); ++i) {
                 JSONObject childObject = childArray.getJSONObject(i);
-                node.childrenList.add(parseLayoutNode(childObject, nodeSeq + "-" + i));
+                node.childrenList.add(parseLayoutNode(childObject, nodeSeq + "-" + i, limiters));
             }
         } else {
             throw new RuntimeException("Invalid type field in workflow node " + nodeSeq);
@@ -155,11 +194,79 @@ public class WorkFlow {
         return node;
     }
 
-    public Future<Void> run(ActionContext context) {
+    private void parseActionLimiter(JSONObject object, Class<? extends Action> actionClass,
+                                    String nodeSeq,
+                                    Map<Class<? extends Action>, ActionLimiter> limiters) {
+        Integer maxLimit = object.getInteger("concurrency");
+        if (maxLimit == null)
+            return;
+        Integer minLimit = object.getInteger("minConcurrency");
+        Long targetLatency = object.getLong("latency");
+        Integer queueSize = object.getInteger("queueSize");
+        Long queueTimeout = object.getLong("queueTimeout");
+        ActionLimiter newLimiter = new ActionLimiter(
+                minLimit == null ? 1 : minLimit, maxLimit, targetLatency != null,
+                targetLatency == null ? 0 : targetLatency,
+                queueSize == null ? 0 : queueSize,
+                queueTimeout == null ? 0 : queueTimeout);
+        ActionLimiter limiter = limiters.putIfAbsent(actionClass, newLimiter);
+        if (limiter != null && !limiter.sameConfig(newLimiter))
+            throw new RuntimeException("Conflicting concurrency limit in workflow node " + nodeSeq);
+    }
+
+    /*
+     * Publish limiters to the thread pool after whole layout parsed, nothing is
+     * published if any limiter conflicts with the ones already on the pool.
+     */
+    private void publishActionLimiters(Map<Class<? extends Action>, ActionLimiter> limiters) {
+        synchronized (actionLimiters) {
+            for (Map.Entry<Class<? extends Action>, ActionLimiter> entry : limiters.entrySet()) {
+                ActionLimiter limiter = actionLimiters.get(entry.getKey());
+                if (limiter != null && !limiter.sameConfig(entry.getValue()))
+                    throw new RuntimeException(
+                            "Conflicting concurrency limit of action " + entry.getKey().getName());
+            }
+            for (Map.Entry<Class<? extends Action>, ActionLimiter> entry : limiters.entrySet()) {
+                actionLimiters.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public FlowFuture run(ActionContext context) {
         FlowExecutor flowExecutor = new FlowExecutor(
                 counter.incrementAndGet(), context, threadPool);
         flowExecutor.addNode(rootNode);
         threadPool.submit(() -> flowExecutor.runNode(rootNode));
         return flowExecutor.getFuture();
     }
+
+    public int getRunningCount() {
+        return runningExecutors.size();
+    }
+
+    /*
+     * Snapshot all running executors, a run is marked stuck if no node
+     * finished within stuckTimeout.
+     */
+    public List<FlowSnapshot> getRunningSnapshots(long stuckTimeout, TimeUnit unit) {
+        return takeSnapshots(unit.toMillis(stuckTimeout), false);
+    }
+
+    /*
+     * Snapshot running executors which are stuck only.
+     */
+    public List<FlowSnapshot> getStuckSnapshots(long stuckTimeout, TimeUnit unit) {
+        return takeSnapshots(unit.toMillis(stuckTimeout), true);
+    }
+
+    private List<FlowSnapshot> takeSnapshots(long stuckTimeout, boolean stuckOnly) {
+        long now = System.currentTimeMillis();
+        List<FlowSnapshot> snapshots = new ArrayList<>(runningExecutors.size());
+        for (FlowExecutor executor : runningExecutors.values()) {
+            FlowSnapshot snapshot = executor.snapshot(name, now, stuckTimeout);
+            if (!stuckOnly || snapshot.isStuck())
+                snapshots.add(snapshot);
+        }
+        return snapshots;
+    }
 }
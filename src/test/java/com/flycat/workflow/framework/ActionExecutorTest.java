@@ -3,6 +3,10 @@ package com.flycat.workflow.framework;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
 public class ActionExecutorTest {
 
     private static class TestContext extends ActionContext {
@@ -48,4 +52,71 @@ public class ActionExecutorTest {
             Assert.assertTrue(false);
         }
     }
+
+    @Test
+    public void limiterTest() {
+        ActionLimiter limiter = new ActionLimiter(1, 0, 0);
+        TestContext testContext = new TestContext();
+        testContext.setNeedRun(true);
+        ActionExecutor executor = new ActionExecutor(TestAction.class,
+                Collections.singletonMap(TestAction.class, limiter));
+
+        Assert.assertTrue(limiter.acquire());
+        try {
+            executor.run(testContext);
+            Assert.assertTrue(false);
+        } catch (RejectedExecutionException e) {
+            Assert.assertFalse(testContext.getRun());
+        }
+        limiter.release(0, true);
+
+        executor.run(testContext);
+        Assert.assertTrue(testContext.getRun());
+        Assert.assertEquals(0, limiter.getInflight());
+    }
+
+    @Test
+    public void adaptiveLimiterTest() {
+        ActionLimiter limiter = new ActionLimiter(2, 10, true, 100, 0, 0);
+        Assert.assertEquals(10, limiter.getLimit());
+        for (int i = 0; i < 20; ++i) {
+            Assert.assertTrue(limiter.acquire());
+            limiter.release(200, true);
+        }
+        Assert.assertEquals(2, limiter.getLimit());
+        for (int i = 0; i < 20; ++i) {
+            Assert.assertTrue(limiter.acquire());
+            limiter.release(10, true);
+        }
+        Assert.assertTrue(limiter.getLimit() > 2);
+        Assert.assertTrue(limiter.acquire());
+        limiter.release(10, false);
+        Assert.assertTrue(limiter.getLimit() < 10);
+    }
+
+    @Test
+    public void limiterQueueTest() throws Exception {
+        ActionLimiter limiter = new ActionLimiter(1, 1, 1000);
+        Assert.assertTrue(limiter.acquire());
+
+        Thread waiter = new Thread(() -> {
+            if (limiter.acquire())
+                limiter.release(0, true);
+        });
+        waiter.start();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (limiter.getWaiters() == 0 && System.currentTimeMillis() < deadline)
+            TimeUnit.MILLISECONDS.sleep(1);
+        Assert.assertEquals(1, limiter.getWaiters());
+
+        // Queue is full, so extra caller is rejected without waiting.
+        long startTime = System.currentTimeMillis();
+        Assert.assertFalse(limiter.acquire());
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 500);
+
+        limiter.release(0, true);
+        waiter.join(1000);
+        Assert.assertEquals(0, limiter.getWaiters());
+        Assert.assertEquals(0, limiter.getInflight());
+    }
 }
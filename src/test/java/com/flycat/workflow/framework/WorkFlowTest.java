@@ -3,6 +3,7 @@ package com.flycat.workflow.framework;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.*;
@@ -12,6 +13,23 @@ public class WorkFlowTest {
             100, 100, 60, TimeUnit.SECONDS,
             new LinkedBlockingDeque<>(100));
 
+    // Two slow actions share a limit of 1, so one is rejected and TestAction001 is skipped.
+    private static final String LIMIT_LAYOUT =
+            "{\"name\":\"testWorkflow\",\"workflow\":{\"type\":\"SERIAL\",\"data\":[" +
+            "{\"type\":\"PARALLEL\",\"data\":[" +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"," +
+                    "\"concurrency\":1}," +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"}" +
+            "]}," +
+            "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$TestAction001\"}" +
+            "]}}";
+
+    // Limiters are shared per thread pool, so limiter tests use their own pool.
+    private static ThreadPoolExecutor newThreadPool() {
+        return new ThreadPoolExecutor(10, 10, 60, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<>(100));
+    }
+
     public static class TestContext extends ActionContext {
         private final Map<String, Long> actionRecords = new ConcurrentHashMap();
         public void addActionRunRecord(String actionName) {
@@ -60,6 +78,23 @@ public class WorkFlowTest {
         public TestAction006(ActionContext context) { super(context); }
     }
 
+    public static class SlowAction extends Action {
+        private TestContext testContext;
+        public SlowAction(ActionContext context) {
+            super(context);
+            testContext = (TestContext)context;
+        }
+        @Override
+        public void run() {
+            try {
+                TimeUnit.MILLISECONDS.sleep(200);
+                testContext.addActionRunRecord(Thread.currentThread().getName());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     @Test
     public void workflowTest001() {
         String layout = "{\"name\":\"testWorkflow\",\"workflow\":{\"type\":\"SERIAL\",\"data\":[" +
@@ -123,4 +158,168 @@ public class WorkFlowTest {
             Assert.assertTrue(false);
         }
     }
+
+    @Test
+    public void workflowLimitTest() {
+        ThreadPoolExecutor limitPool = newThreadPool();
+        try {
+            WorkFlow workFlow = new WorkFlow(LIMIT_LAYOUT, limitPool);
+            Assert.assertTrue(workFlow.init());
+            TestContext testContext = new TestContext();
+            FlowFuture future = workFlow.run(testContext);
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.assertTrue(false);
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            Assert.assertTrue(future.isDone());
+            Assert.assertTrue(future.getError() instanceof RejectedExecutionException);
+            Assert.assertEquals(1, testContext.actionRecords.size());
+            Assert.assertFalse(testContext.actionRecords.containsKey(TestAction001.class.getName()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.assertTrue(false);
+        } finally {
+            limitPool.shutdown();
+        }
+    }
+
+    @Test
+    public void workflowLimitInitFailTest() {
+        String badLayout = "{\"name\":\"badWorkflow\",\"workflow\":{\"type\":\"SERIAL\",\"data\":[" +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"," +
+                    "\"concurrency\":1}," +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.NoSuchAction\"}" +
+                "]}}";
+        String plainLayout = "{\"name\":\"plainWorkflow\",\"workflow\":{\"type\":\"PARALLEL\",\"data\":[" +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"}," +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"}" +
+                "]}}";
+        ThreadPoolExecutor limitPool = newThreadPool();
+        try {
+            Assert.assertFalse(new WorkFlow(badLayout, limitPool).init());
+
+            // Limiter of a failed layout is not published to the pool.
+            WorkFlow plainFlow = new WorkFlow(plainLayout, limitPool);
+            Assert.assertTrue(plainFlow.init());
+            TestContext testContext = new TestContext();
+            FlowFuture future = plainFlow.run(testContext);
+            future.get(1, TimeUnit.SECONDS);
+            Assert.assertTrue(future.isDone());
+            Assert.assertNull(future.getError());
+            Assert.assertEquals(2, testContext.actionRecords.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.assertTrue(false);
+        } finally {
+            limitPool.shutdown();
+        }
+    }
+
+    @Test
+    public void workflowSharedLimitTest() {
+        String limitLayout = "{\"name\":\"limitWorkflow\",\"workflow\":" +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"," +
+                    "\"concurrency\":1}}";
+        String plainLayout = "{\"name\":\"plainWorkflow\",\"workflow\":" +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"}}";
+        String conflictLayout = "{\"name\":\"conflictWorkflow\",\"workflow\":" +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$SlowAction\"," +
+                    "\"concurrency\":2}}";
+        ThreadPoolExecutor limitPool = newThreadPool();
+        try {
+            WorkFlow limitFlow = new WorkFlow(limitLayout, limitPool);
+            WorkFlow plainFlow = new WorkFlow(plainLayout, limitPool);
+            Assert.assertTrue(plainFlow.init());
+            Assert.assertTrue(limitFlow.init());
+            Assert.assertFalse(new WorkFlow(conflictLayout, limitPool).init());
+
+            // Workflows on the same pool share the limiter of an action class.
+            FlowFuture limitFuture = limitFlow.run(new TestContext());
+            FlowFuture plainFuture = plainFlow.run(new TestContext());
+            limitFuture.get(1, TimeUnit.SECONDS);
+            plainFuture.get(1, TimeUnit.SECONDS);
+            Assert.assertTrue(false);
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.assertTrue(false);
+        } finally {
+            limitPool.shutdown();
+        }
+    }
+
+    @Test
+    public void workflowSnapshotTest() {
+        ThreadPoolExecutor limitPool = newThreadPool();
+        try {
+            WorkFlow workFlow = new WorkFlow(LIMIT_LAYOUT, limitPool);
+            Assert.assertTrue(workFlow.init());
+            Future<Void> future = workFlow.run(new TestContext());
+            // Start time is stamped by a pool thread, so wait until the run is visible.
+            long deadline = System.currentTimeMillis() + 1000;
+            while (workFlow.getRunningCount() == 0 && System.currentTimeMillis() < deadline)
+                TimeUnit.MILLISECONDS.sleep(1);
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            List<FlowSnapshot> snapshots = workFlow.getRunningSnapshots(10, TimeUnit.SECONDS);
+            Assert.assertEquals(1, snapshots.size());
+            FlowSnapshot snapshot = snapshots.get(0);
+            Assert.assertEquals("testWorkflow", snapshot.getFlowName());
+            Assert.assertFalse(snapshot.isStuck());
+            Assert.assertTrue(snapshot.getElapsedTime() >= 100);
+            Assert.assertEquals(1, snapshot.getFrontierNodes().size());
+            Assert.assertEquals(1, snapshot.getNodeErrors().size());
+            Assert.assertFalse(snapshot.getNodeErrors().containsKey(snapshot.getFrontierNodes().get(0)));
+            Assert.assertEquals(1, workFlow.getStuckSnapshots(10, TimeUnit.MILLISECONDS).size());
+
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.assertTrue(false);
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            Assert.assertTrue(future.isDone());
+            Assert.assertEquals(0, workFlow.getRunningCount());
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.assertTrue(false);
+        } finally {
+            limitPool.shutdown();
+        }
+    }
+
+    @Test
+    public void workflowSnapshotStartTest() {
+        String layout = "{\"name\":\"testWorkflow\",\"workflow\":" +
+                "{\"type\":\"ACTION\",\"data\":\"com.flycat.workflow.framework.WorkFlowTest$TestAction001\"}}";
+        try {
+            // Executor not started yet is not reported as stuck.
+            FlowExecutor executor = new FlowExecutor(1, new TestContext(), threadPool);
+            FlowSnapshot snapshot = executor.snapshot("testWorkflow", System.currentTimeMillis(), 1000);
+            Assert.assertFalse(snapshot.isStuck());
+            Assert.assertTrue(snapshot.getElapsedTime() < 1000);
+
+            // Runs which have just started are never reported as stuck.
+            WorkFlow workFlow = new WorkFlow(layout, threadPool);
+            Assert.assertTrue(workFlow.init());
+            Future<?>[] futures = new Future<?>[50];
+            for (int i = 0; i < futures.length; ++i) {
+                futures[i] = workFlow.run(new TestContext());
+                for (FlowSnapshot s : workFlow.getRunningSnapshots(1, TimeUnit.MINUTES)) {
+                    Assert.assertFalse(s.isStuck());
+                    Assert.assertTrue(s.getElapsedTime() < TimeUnit.MINUTES.toMillis(1));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.assertTrue(future.isDone());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.assertTrue(false);
+        }
+    }
 }